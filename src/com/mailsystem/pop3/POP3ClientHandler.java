@@ -1,7 +1,13 @@
 package com.mailsystem.pop3;
 
+import com.mailsystem.utils.ByteLineReader;
+import com.mailsystem.utils.ByteLineWriter;
+import com.mailsystem.utils.FileUtils;
+import com.mailsystem.utils.MessageCache;
+import com.mailsystem.utils.MessageFile;
 import java.io.*;
 import java.net.Socket;
+import java.nio.ByteBuffer;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.util.*;
@@ -9,12 +15,13 @@ import java.util.*;
 public class POP3ClientHandler implements Runnable {
     private Socket clientSocket;
     private Properties users;
-    private BufferedReader in;
-    private PrintWriter out;
+    private ByteLineReader in;
+    private ByteLineWriter out;
     private String user;
     private boolean authenticated;
     private List<File> emails;
     private List<File> markedForDeletion;
+    private Map<File, MessageFile> messageFiles; // Métadonnées lues à l'ouverture de la boîte
     private String timestamp; // Pour APOP
 
     public POP3ClientHandler(Socket socket) {
@@ -23,6 +30,7 @@ public class POP3ClientHandler implements Runnable {
         this.users = new Properties();
         this.emails = new ArrayList<>();
         this.markedForDeletion = new ArrayList<>();
+        this.messageFiles = new HashMap<>();
         this.timestamp = "<" + System.currentTimeMillis() + "@mailsystem>"; // Timestamp pour APOP
 
 
@@ -32,8 +40,8 @@ public class POP3ClientHandler implements Runnable {
     @Override
     public void run() {
         try {
-            in = new BufferedReader(new InputStreamReader(clientSocket.getInputStream()));
-            out = new PrintWriter(clientSocket.getOutputStream(), true);
+            in = new ByteLineReader(clientSocket.getInputStream());
+            out = new ByteLineWriter(clientSocket.getOutputStream());
             // Envoyer une réponse initiale au client avec le timestamp pour APOP
             out.println("+OK POP3 server ready " + timestamp);
             // Lire les commandes du client
@@ -127,6 +135,12 @@ public class POP3ClientHandler implements Runnable {
             e.printStackTrace();
         } finally {
             try {
+                if (in != null) {
+                    in.close();
+                }
+                if (out != null) {
+                    out.close();
+                }
                 clientSocket.close();
             } catch (IOException e) {
                 e.printStackTrace();
@@ -190,7 +204,7 @@ public class POP3ClientHandler implements Runnable {
             File emailFile = emails.get(i);
             if (!markedForDeletion.contains(emailFile)) {
                 messageCount++;
-                maildropSize += emailFile.length();
+                maildropSize += messageFiles.get(emailFile).getRfcSize();
             }
         }
 
@@ -215,8 +229,8 @@ public class POP3ClientHandler implements Runnable {
                 File emailFile = emails.get(i);
                 if (!markedForDeletion.contains(emailFile)) {
                     messageCount++;
-                    maildropSize += emailFile.length();
-                    out.println((i + 1) + " " + emailFile.length());
+                    maildropSize += messageFiles.get(emailFile).getRfcSize();
+                    out.println((i + 1) + " " + messageFiles.get(emailFile).getRfcSize());
                 }
             }
             out.println("."); // Fin de la réponse
@@ -233,7 +247,7 @@ public class POP3ClientHandler implements Runnable {
                 if (markedForDeletion.contains(emailFile)) {
                     out.println("-ERR Message marked for deletion");
                 } else {
-                    out.println("+OK " + messageNumber + " " + emailFile.length());
+                    out.println("+OK " + messageNumber + " " + messageFiles.get(emailFile).getRfcSize());
                 }
             } catch (NumberFormatException e) {
                 out.println("-ERR Invalid message number");
@@ -262,12 +276,20 @@ public class POP3ClientHandler implements Runnable {
                 return;
             }
 
-            // Envoyer le contenu du message
+            // Message récemment livré : déjà en cache au format de transmission
+            ByteBuffer cached = MessageCache.getInstance().get(emailFile.toPath());
+            if (cached != null) {
+                out.println("+OK");
+                out.write(cached);
+                out.println(".");
+                return;
+            }
+
+            // Envoyer le contenu du message tel qu'il est stocké, sans décodage
             out.println("+OK");
-            try (BufferedReader reader = new BufferedReader(new FileReader(emailFile))) {
-                String line;
-                while ((line = reader.readLine()) != null) {
-                    out.println(line);
+            try (ByteLineReader reader = new ByteLineReader(messageFiles.get(emailFile).openContent())) {
+                while (reader.readLineBytes()) {
+                    out.writeLine(reader.lineBuffer(), 0, reader.lineLength(), true);
                 }
             }
             out.println(".");
@@ -299,6 +321,7 @@ public class POP3ClientHandler implements Runnable {
 
             // Marquer le message pour suppression
             markedForDeletion.add(emailFile);
+            MessageCache.getInstance().invalidate(emailFile.toPath());
             out.println("+OK Message marked for deletion");
         } catch (NumberFormatException e) {
             out.println("-ERR Invalid message number");
@@ -333,45 +356,79 @@ public class POP3ClientHandler implements Runnable {
 
         // Supprimer les messages marqués
         for (File emailFile : markedForDeletion) {
+            MessageCache.getInstance().invalidate(emailFile.toPath());
             emailFile.delete();
         }
         out.println("+OK POP3 server signing off");
     }
 
-    private void handleTop(String inputLine) {
+    private void handleTop(String arguments) {
         if (!authenticated) {
             out.println("-ERR Not authenticated");
             return;
         }
 
-        String[] parts = inputLine.split(" ");
-        if (parts.length < 3) {
+        String[] parts = arguments.trim().split("\\s+");
+        if (parts.length != 2) {
             out.println("-ERR Invalid TOP command");
             return;
         }
 
         try {
-            int messageNumber = Integer.parseInt(parts[1]);
-            int lines = Integer.parseInt(parts[2]);
+            int messageNumber = Integer.parseInt(parts[0]);
+            int lines = Integer.parseInt(parts[1]);
 
             if (messageNumber < 1 || messageNumber > emails.size()) {
                 out.println("-ERR No such message");
                 return;
             }
+            if (lines < 0) {
+                out.println("-ERR Invalid TOP command");
+                return;
+            }
 
             File emailFile = emails.get(messageNumber - 1);
+            if (markedForDeletion.contains(emailFile)) {
+                out.println("-ERR Message marked for deletion");
+                return;
+            }
+
+            // RFC 1939 : tous les en-têtes, la ligne vide, puis n lignes du corps.
+            // Les en-têtes sont lus d'un bloc à leur position, le corps seulement si nécessaire.
+            MessageFile message = messageFiles.get(emailFile);
+            int bodyLines = message.isIndexed() ? Math.min(lines, message.getBodyLines()) : lines;
+            byte[] headers = message.readHeaders();
             out.println("+OK");
-            try (BufferedReader reader = new BufferedReader(new FileReader(emailFile))) {
-                String line;
-                int lineCount = 0;
-                while ((line = reader.readLine()) != null && lineCount < lines) {
-                    out.println(line);
-                    lineCount++;
+            writeLines(headers, headers.length);
+            if (bodyLines > 0) {
+                // Décompression au fil de l'eau : on s'arrête dès que assez de lignes sont produites
+                try (ByteLineReader reader = new ByteLineReader(message.openBody())) {
+                    int lineCount = 0;
+                    while (lineCount < bodyLines && reader.readLineBytes()) {
+                        out.writeLine(reader.lineBuffer(), 0, reader.lineLength(), true);
+                        lineCount++;
+                    }
                 }
             }
             out.println(".");
-        } catch (NumberFormatException | IOException e) {
+        } catch (NumberFormatException e) {
             out.println("-ERR Invalid TOP command");
+        } catch (IOException e) {
+            out.println("-ERR Error reading message");
+        }
+    }
+
+    // Envoie un bloc de lignes stockées (séparées par '\n') en CRLF avec dot-stuffing
+    private void writeLines(byte[] data, int length) {
+        int start = 0;
+        for (int i = 0; i < length; i++) {
+            if (data[i] == '\n') {
+                out.writeLine(data, start, i - start, true);
+                start = i + 1;
+            }
+        }
+        if (start < length) {
+            out.writeLine(data, start, length - start, true);
         }
     }
 
@@ -405,15 +462,14 @@ public class POP3ClientHandler implements Runnable {
     }
     private void loadEmails(File userDir) {
         emails.clear();
-        File[] files = userDir.listFiles();
-        if (files != null) {
-            // Trier les fichiers par date de modification (du plus ancien au plus récent)
-            Arrays.sort(files, Comparator.comparingLong(File::lastModified));
-
-            for (File file : files) {
-                if (file.isFile()) {
-                    emails.add(file);
-                }
+        messageFiles.clear();
+        // Fichiers triés du plus ancien au plus récent
+        for (File file : FileUtils.listEmails(userDir)) {
+            try {
+                messageFiles.put(file, MessageFile.open(file));
+                emails.add(file);
+            } catch (IOException e) {
+                e.printStackTrace();
             }
         }
     }
@@ -1,12 +1,24 @@
 package com.mailsystem.pop3;
 
+import com.mailsystem.utils.MessageCache;
 import java.net.ServerSocket;
 import java.net.Socket;
 
 public class POP3Server {
+    public static final int DEFAULT_PORT = 110;
+
     public static void main(String[] args) {
-        try (ServerSocket serverSocket = new ServerSocket(110)) {
-            System.out.println("POP3 Server started on port 110...");
+        start(DEFAULT_PORT);
+    }
+
+    public static void start(int port) {
+        try (ServerSocket serverSocket = new ServerSocket(port)) {
+            System.out.println("POP3 Server started on port " + port + "...");
+            // Statistiques du cache de messages, pour en ajuster la taille (s'il est activé)
+            if (MessageCache.getInstance().isEnabled()) {
+                Runtime.getRuntime().addShutdownHook(new Thread(() ->
+                        System.out.println("Message cache: " + MessageCache.getInstance())));
+            }
             while (true) {
                 Socket clientSocket = serverSocket.accept();
                 System.out.println("New client connected: " + clientSocket.getInetAddress());
@@ -0,0 +1,112 @@
+package com.mailsystem.server;
+
+import com.mailsystem.pop3.POP3Server;
+import com.mailsystem.rmi.AuthService;
+import com.mailsystem.smtp.SMTPServer;
+import com.mailsystem.utils.MessageCache;
+
+/**
+ * Lance dans une seule JVM n'importe quelle combinaison des services RMI, SMTP et POP3.
+ *
+ * Usage : MailServerLauncher [rmi[:port]] [smtp[:port]] [pop3[:port]] [auth=host:port]
+ * Sans argument, les trois services démarrent sur leurs ports par défaut.
+ *
+ * Quand le service RMI tourne dans le même processus, le serveur SMTP reçoit
+ * directement l'AuthServiceImpl : l'authentification est un simple appel de méthode,
+ * sans sérialisation ni aller-retour TCP. Sinon, le stub est récupéré auprès du
+ * registre indiqué par auth= (localhost:1099 par défaut), en attendant qu'il soit prêt.
+ * Quand SMTP et POP3 tournent ensemble, le cache RETR des messages livrés est activé.
+ *
+ * Le démarrage n'utilise ni réflexion ni chargement dynamique, ce qui le rend
+ * compatible avec une archive AppCDS :
+ *   java -XX:ArchiveClassesAtExit=mail.jsa -cp out com.mailsystem.server.MailServerLauncher
+ *   java -XX:SharedArchiveFile=mail.jsa -cp out com.mailsystem.server.MailServerLauncher
+ */
+public class MailServerLauncher {
+    public static void main(String[] args) {
+        int rmiPort = -1;
+        int smtpPort = -1;
+        int pop3Port = -1;
+        String authHost = "localhost";
+        int authPort = RMIServer.DEFAULT_PORT;
+
+        if (args.length == 0) {
+            rmiPort = RMIServer.DEFAULT_PORT;
+            smtpPort = SMTPServer.DEFAULT_PORT;
+            pop3Port = POP3Server.DEFAULT_PORT;
+        }
+        try {
+            for (String arg : args) {
+                String[] parts = arg.split("[:=]", 2);
+                String service = parts[0].toLowerCase();
+                if (service.equals("rmi")) {
+                    rmiPort = parts.length > 1 ? parsePort(parts[1]) : RMIServer.DEFAULT_PORT;
+                } else if (service.equals("smtp")) {
+                    smtpPort = parts.length > 1 ? parsePort(parts[1]) : SMTPServer.DEFAULT_PORT;
+                } else if (service.equals("pop3")) {
+                    pop3Port = parts.length > 1 ? parsePort(parts[1]) : POP3Server.DEFAULT_PORT;
+                } else if (service.equals("auth") && parts.length > 1) {
+                    String[] address = parts[1].split(":", 2);
+                    authHost = address[0];
+                    authPort = address.length > 1 ? parsePort(address[1]) : RMIServer.DEFAULT_PORT;
+                } else {
+                    usage("Unknown argument: " + arg);
+                    return;
+                }
+            }
+        } catch (NumberFormatException e) {
+            usage("Invalid port: " + e.getMessage());
+            return;
+        }
+
+        // Le cache RETR n'est utile que si les messages livrés sont relevés dans ce processus
+        if (smtpPort > 0 && pop3Port > 0) {
+            MessageCache.getInstance().enable();
+        }
+
+        // Le service RMI démarre en premier : il est prêt avant que SMTP n'accepte des clients
+        AuthService localAuthService = null;
+        if (rmiPort > 0) {
+            try {
+                localAuthService = RMIServer.start(rmiPort);
+            } catch (Exception e) {
+                e.printStackTrace();
+                return;
+            }
+        }
+
+        if (smtpPort > 0) {
+            final int port = smtpPort;
+            final AuthService authService = localAuthService;
+            final String host = authHost;
+            final int registryPort = authPort;
+            new Thread(() -> {
+                try {
+                    // Appel direct si l'AuthService est local, stub RMI sinon
+                    SMTPServer.start(port, authService != null ? authService : SMTPServer.lookupAuthService(host, registryPort));
+                } catch (Exception e) {
+                    e.printStackTrace();
+                }
+            }, "smtp-server").start();
+        }
+
+        if (pop3Port > 0) {
+            final int port = pop3Port;
+            new Thread(() -> POP3Server.start(port), "pop3-server").start();
+        }
+    }
+
+    // Un port hors de 1-65535 est une erreur, et non un service désactivé
+    private static int parsePort(String value) {
+        int port = Integer.parseInt(value);
+        if (port < 1 || port > 65535) {
+            throw new NumberFormatException("port out of range 1-65535: " + value);
+        }
+        return port;
+    }
+
+    private static void usage(String error) {
+        System.err.println(error);
+        System.err.println("Usage: MailServerLauncher [rmi[:port]] [smtp[:port]] [pop3[:port]] [auth=host:port]");
+    }
+}
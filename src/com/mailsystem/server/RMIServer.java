@@ -2,18 +2,30 @@ package com.mailsystem.server;
 
 import com.mailsystem.rmi.AuthService;
 import com.mailsystem.rmi.impl.AuthServiceImpl;
+import java.rmi.RemoteException;
 import java.rmi.registry.LocateRegistry;
 import java.rmi.registry.Registry;
 
 public class RMIServer {
+    public static final int DEFAULT_PORT = 1099; // Port par défaut pour RMI
+
     public static void main(String[] args) {
         try {
-            AuthService authService = new AuthServiceImpl();
-            Registry registry = LocateRegistry.createRegistry(1099); // Port par défaut pour RMI
-            registry.rebind("AuthService", authService);
-            System.out.println("AuthService is running...");
+            start(DEFAULT_PORT);
         } catch (Exception e) {
             e.printStackTrace();
         }
     }
-}
\ No newline at end of file
+
+    /**
+     * Crée le registre, publie l'AuthService et retourne l'implémentation locale.
+     * Le service est prêt à répondre au retour de cette méthode.
+     */
+    public static AuthService start(int port) throws RemoteException {
+        AuthService authService = new AuthServiceImpl();
+        Registry registry = LocateRegistry.createRegistry(port);
+        registry.rebind("AuthService", authService);
+        System.out.println("AuthService is running on port " + port + "...");
+        return authService;
+    }
+}
@@ -1,20 +1,21 @@
 package com.mailsystem.smtp;
 
 import com.mailsystem.rmi.AuthService;
+import com.mailsystem.utils.ByteLineReader;
+import com.mailsystem.utils.ByteLineWriter;
 import com.mailsystem.utils.FileUtils;
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.PrintWriter;
 import java.net.Socket;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 public class SMTPClientHandler implements Runnable {
     private static final int MAX_MESSAGE_SIZE = 10485760; // 10 Mo
 
     private Socket clientSocket;
-    private BufferedReader in;
-    private PrintWriter out;
+    private ByteLineReader in;
+    private ByteLineWriter out;
     private AuthService authService;
     private boolean isAuthenticated = false;
     private boolean heloReceived = false;
@@ -22,7 +23,9 @@ public class SMTPClientHandler implements Runnable {
     private boolean rcptToReceived = false;
     private String from = null;
     private List<String> recipients = new ArrayList<>();
-    private StringBuilder emailContent = new StringBuilder();
+    // Contenu du message en octets bruts (lignes terminées par '\n'), réutilisé d'un message à l'autre
+    private byte[] emailContent = new byte[8192];
+    private int emailLength = 0;
 
     public SMTPClientHandler(Socket socket, AuthService authService) {
         this.clientSocket = socket;
@@ -32,8 +35,8 @@ public class SMTPClientHandler implements Runnable {
     @Override
     public void run() {
         try {
-            in = new BufferedReader(new InputStreamReader(clientSocket.getInputStream()));
-            out = new PrintWriter(clientSocket.getOutputStream(), true);
+            in = new ByteLineReader(clientSocket.getInputStream());
+            out = new ByteLineWriter(clientSocket.getOutputStream());
             out.println("220 " + clientSocket.getLocalAddress().getHostName() + " SMTP Service Ready");
 
             String inputLine;
@@ -66,6 +69,12 @@ public class SMTPClientHandler implements Runnable {
             e.printStackTrace();
         } finally {
             try {
+                if (in != null) {
+                    in.close();
+                }
+                if (out != null) {
+                    out.close();
+                }
                 clientSocket.close();
             } catch (IOException e) {
                 e.printStackTrace();
@@ -80,7 +89,8 @@ public class SMTPClientHandler implements Runnable {
                 try {
                     if (parts.length == 3) {
                         // Authentification en une étape (PLAIN)
-                        String credentials = parts[2];
+                        // La commande est lue octet par octet (ISO-8859-1) : les identifiants sont en UTF-8
+                        String credentials = new String(parts[2].getBytes(StandardCharsets.ISO_8859_1), StandardCharsets.UTF_8);
                         String[] authParts = credentials.split("\0");
                         if (authParts.length == 3) {
                             isAuthenticated = authService.authenticate(authParts[1], authParts[2]);
@@ -88,9 +98,9 @@ public class SMTPClientHandler implements Runnable {
                     } else {
                         // Authentification en deux étapes (LOGIN)
                         out.println("334 Username:");
-                        String username = in.readLine();
+                        String username = in.readLine(StandardCharsets.UTF_8);
                         out.println("334 Password:");
-                        String password = in.readLine();
+                        String password = in.readLine(StandardCharsets.UTF_8);
                         isAuthenticated = authService.authenticate(username, password);
                     }
                     out.println(isAuthenticated ? "235 Authentication successful" : "535 Authentication failed");
@@ -155,13 +165,19 @@ public class SMTPClientHandler implements Runnable {
             return;
         }
         out.println("354 Start mail input; end with <CRLF>.<CRLF>");
-        String inputLine;
         try {
-            while ((inputLine = in.readLine()) != null) {
-                if (inputLine.equals(".")) {
+            while (in.readLineBytes()) {
+                byte[] line = in.lineBuffer();
+                int length = in.lineLength();
+                if (length == 1 && line[0] == '.') {
                     break;
                 }
-                emailContent.append(inputLine).append("\n");
+                // Retirer le point ajouté par le client (dot-stuffing, RFC 5321 4.5.2)
+                int offset = (length > 0 && line[0] == '.') ? 1 : 0;
+                // Au-delà de la taille maximale on continue de lire jusqu'au "." sans stocker
+                if (emailLength <= MAX_MESSAGE_SIZE) {
+                    appendContent(line, offset, length - offset);
+                }
             }
         } catch (IOException e) {
             // Handle connection interruption
@@ -169,15 +185,19 @@ public class SMTPClientHandler implements Runnable {
             resetState();
             return;
         }
-        if (emailContent.length() > MAX_MESSAGE_SIZE) {
+        if (emailLength > MAX_MESSAGE_SIZE) {
             out.println("552 Message size exceeds fixed maximum message size");
+            resetState();
             return;
         }
         if (from != null && !recipients.isEmpty()) {
-            for (String recipient : recipients) {
-                FileUtils.saveEmail(recipient, emailContent.toString());
+            try {
+                FileUtils.saveEmail(recipients, emailContent, emailLength);
+                out.println("250 Email received and saved");
+            } catch (IOException e) {
+                // Le client garde le message et réessaiera plus tard
+                out.println("451 Requested action aborted: error in processing, email not saved");
             }
-            out.println("250 Email received and saved");
         } else {
             out.println("550 Invalid sender or recipient");
         }
@@ -205,10 +225,20 @@ public class SMTPClientHandler implements Runnable {
         return email != null && email.matches("^[A-Za-z0-9+_.-]+@[A-Za-z0-9.-]+$");
     }
 
+    private void appendContent(byte[] line, int offset, int length) {
+        int required = emailLength + length + 1;
+        if (required > emailContent.length) {
+            emailContent = Arrays.copyOf(emailContent, Math.max(emailContent.length * 2, required));
+        }
+        System.arraycopy(line, offset, emailContent, emailLength, length);
+        emailLength += length;
+        emailContent[emailLength++] = '\n';
+    }
+
     private void resetState() {
         mailFromReceived = false;
         rcptToReceived = false;
         recipients.clear();
-        emailContent.setLength(0);
+        emailLength = 0;
     }
 }
\ No newline at end of file
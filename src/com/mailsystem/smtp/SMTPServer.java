@@ -2,6 +2,8 @@ package com.mailsystem.smtp;
 import com.mailsystem.rmi.AuthService;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.rmi.NotBoundException;
+import java.rmi.RemoteException;
 import java.rmi.registry.LocateRegistry;
 import java.rmi.registry.Registry;
 import java.util.concurrent.ExecutorService;
@@ -10,15 +12,50 @@ import java.util.logging.Level;
 import java.util.logging.Logger;
 public class SMTPServer {
     private static final Logger logger = Logger.getLogger(SMTPServer.class.getName());
-    private static final int PORT = 25; // Port SMTP par défaut
+    public static final int DEFAULT_PORT = 25; // Port SMTP par défaut
     private static final int THREAD_POOL_SIZE = 10; // Taille du pool de threads
+    private static final int LOOKUP_ATTEMPTS = 20; // Attente du registre RMI : 20 x 500 ms
+    private static final long LOOKUP_DELAY_MS = 500;
+
     public static void main(String[] args) {
+        try {
+            // Connexion au service RMI
+            AuthService authService = lookupAuthService("localhost", 1099);
+            start(DEFAULT_PORT, authService);
+        } catch (Exception e) {
+            logger.log(Level.SEVERE, "An error occurred in the SMTP server: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Récupère le stub de l'AuthService distant en attendant que le registre soit prêt,
+     * au lieu d'échouer si le serveur RMI démarre après le serveur SMTP.
+     */
+    public static AuthService lookupAuthService(String host, int port) throws RemoteException, NotBoundException, InterruptedException {
+        for (int attempt = 1; ; attempt++) {
+            try {
+                Registry registry = LocateRegistry.getRegistry(host, port);
+                AuthService authService = (AuthService) registry.lookup("AuthService");
+                logger.info("Connected to RMI AuthService.");
+                return authService;
+            } catch (RemoteException | NotBoundException e) {
+                if (attempt >= LOOKUP_ATTEMPTS) {
+                    throw e;
+                }
+                logger.info("RMI AuthService not ready, retrying...");
+                Thread.sleep(LOOKUP_DELAY_MS);
+            }
+        }
+    }
+
+    /**
+     * Lance la boucle d'acceptation. authService peut être le stub RMI ou, dans le
+     * même processus, directement l'implémentation (appel local sans sérialisation).
+     */
+    public static void start(int port, AuthService authService) {
         ExecutorService threadPool = Executors.newFixedThreadPool(THREAD_POOL_SIZE); // Créer un pool de threads avec une taille fixe
-        try (ServerSocket serverSocket = new ServerSocket(PORT)) {
-            logger.info("SMTP Server started on port " + PORT + "...");// Connexion au service RMI
-            Registry registry = LocateRegistry.getRegistry("localhost", 1099);
-            AuthService authService = (AuthService) registry.lookup("AuthService");
-            logger.info("Connected to RMI AuthService.");// Ajouter un hook pour arrêter proprement le serveur
+        try (ServerSocket serverSocket = new ServerSocket(port)) {
+            logger.info("SMTP Server started on port " + port + "...");// Ajouter un hook pour arrêter proprement le serveur
             Runtime.getRuntime().addShutdownHook(new Thread(() -> {
                 logger.info("Shutting down SMTP server...");
                 threadPool.shutdown(); // Arrêter le pool de threads
@@ -37,4 +74,4 @@ public class SMTPServer {
             logger.info("SMTP server stopped.");
         }
     }
-}
\ No newline at end of file
+}
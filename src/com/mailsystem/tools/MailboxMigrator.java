@@ -0,0 +1,606 @@
+package com.mailsystem.tools;
+
+import com.mailsystem.utils.ByteLineReader;
+import com.mailsystem.utils.FileUtils;
+import com.mailsystem.utils.MessageFile;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.*;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Import et export en masse de boîtes aux lettres (mbox ou Maildir), en écrivant
+ * directement dans mailserver/&lt;user&gt;/ via FileUtils.storeEmail, sans session SMTP.
+ *
+ * Usage :
+ *   MailboxMigrator import mbox|maildir &lt;source&gt; &lt;user&gt; [--all-folders]
+ *   MailboxMigrator export mbox|maildir &lt;user&gt; &lt;destination&gt;
+ *
+ * Un import Maildir ne lit que les cur/ et new/ de premier niveau (la boîte de réception) ;
+ * --all-folders y ajoute les sous-dossiers Maildir++ (.Sent, .Trash, .Junk...).
+ *
+ * À l'import, les messages sont analysés en parallèle par lots dans un ForkJoinPool,
+ * puis passés par une file à un unique thread d'écriture. Les lots (256 messages ou
+ * 8 Mo) et la file (32 Mo) sont bornés en octets : la mémoire utilisée ne dépend pas
+ * de la taille de la source, seulement de celle du plus gros message.
+ *
+ * La reprise est idempotente : chaque message importé est enregistré sous un nom
+ * déduit de la source et de sa position (import-&lt;source&gt;-&lt;n&gt;.txt), et un message
+ * dont le fichier existe déjà n'est pas réécrit. Après chaque lot écrit, sa position
+ * est aussi enregistrée dans un point de reprise propre à l'utilisateur et à la source
+ * (mailserver/.import-&lt;user&gt;-&lt;source&gt;.checkpoint), ce qui évite de réanalyser ce qui
+ * est déjà fait : relancer la même commande reprend après le dernier lot terminé, et
+ * les messages du lot interrompu déjà écrits sont ignorés.
+ *
+ * À l'export, les messages sont lus et convertis en parallèle. L'export Maildir
+ * ignore les messages déjà présents dans la destination et peut donc être relancé.
+ */
+public class MailboxMigrator {
+    private static final int BATCH_SIZE = 256;
+    private static final int BATCH_BYTES = 8 * 1024 * 1024; // Un lot part à 256 messages ou 8 Mo
+    private static final int QUEUE_BYTES = 32 * 1024 * 1024; // Octets analysés en attente d'écriture
+    private static final Batch END_OF_IMPORT = new Batch(new ArrayList<>(), 0, 0);
+    private static final byte[] FROM = "From ".getBytes(StandardCharsets.US_ASCII);
+    private static final DateTimeFormatter MBOX_DATE =
+            DateTimeFormatter.ofPattern("EEE MMM ppd HH:mm:ss yyyy", Locale.US).withZone(ZoneOffset.UTC);
+    // Date d'une ligne From_ une fois les espaces multiples réduits à un seul
+    private static final DateTimeFormatter MBOX_DATE_PARSER =
+            DateTimeFormatter.ofPattern("EEE MMM d HH:mm:ss yyyy", Locale.US).withZone(ZoneOffset.UTC);
+
+    private final ForkJoinPool pool = ForkJoinPool.commonPool();
+
+    public static void main(String[] args) {
+        boolean allFolders = args.length == 5 && args[0].equals("import") && args[1].equals("maildir")
+                && args[4].equals("--all-folders");
+        if ((args.length != 4 && !allFolders) || !(args[1].equals("mbox") || args[1].equals("maildir"))) {
+            usage();
+            return;
+        }
+        MailboxMigrator migrator = new MailboxMigrator();
+        boolean mbox = args[1].equals("mbox");
+        try {
+            long count;
+            if (args[0].equals("import")) {
+                count = migrator.importMailbox(mbox, Path.of(args[2]), args[3], allFolders);
+                System.out.println(count + " messages imported into " + args[3]);
+            } else if (args[0].equals("export")) {
+                count = migrator.exportMailbox(mbox, args[2], Path.of(args[3]));
+                System.out.println(count + " messages exported from " + args[2]);
+            } else {
+                usage();
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+
+    private static void usage() {
+        System.err.println("Usage: MailboxMigrator import mbox|maildir <source> <user> [--all-folders]");
+        System.err.println("       MailboxMigrator export mbox|maildir <user> <destination>");
+    }
+
+    // ---------------------------------------------------------------- Import
+
+    /**
+     * Importe une source mbox ou Maildir et retourne le nombre de messages écrits
+     * par cette exécution (hors messages déjà importés lors d'une exécution précédente).
+     * allFolders inclut les sous-dossiers Maildir++ ; il est sans effet pour mbox.
+     */
+    public long importMailbox(boolean mbox, Path source, String user, boolean allFolders) throws Exception {
+        if (!FileUtils.isValidEmail(user)) {
+            throw new IllegalArgumentException("Invalid email address: " + user);
+        }
+        // Les positions des messages ne valent que pour la même liste de dossiers
+        String sourceId = source.toAbsolutePath().normalize() + (!mbox && allFolders ? " --all-folders" : "");
+        String sourceKey = sourceKey(sourceId);
+        Path checkpoint = Path.of("mailserver", ".import-" + user + "-" + sourceKey + ".checkpoint");
+        long alreadyImported = readCheckpoint(checkpoint, sourceId);
+        if (alreadyImported > 0) {
+            System.out.println("Resuming after " + alreadyImported + " messages");
+        }
+
+        ImportWriter writer = new ImportWriter(user, sourceKey, checkpoint, sourceId);
+        writer.start();
+        try {
+            if (mbox) {
+                readMbox(source, alreadyImported, writer);
+            } else {
+                readMaildir(source, allFolders, alreadyImported, writer);
+            }
+        } finally {
+            writer.finish();
+        }
+        writer.checkError();
+        return writer.written;
+    }
+
+    /**
+     * Découpe le fichier mbox séquentiellement (lignes "From " en début de message),
+     * l'analyse de chaque message se faisant ensuite en parallèle par lots.
+     * Chaque message est lu directement dans son propre tableau, transmis tel quel
+     * au lot puis désescapé sur place : il n'est jamais recopié.
+     */
+    private void readMbox(Path source, long skip, ImportWriter writer) throws Exception {
+        List<ImportedMessage> raw = new ArrayList<>(BATCH_SIZE);
+        int rawBytes = 0;
+        long first = skip; // Position dans la source du premier message du lot
+        byte[] message = new byte[8192];
+        int messageLength = 0;
+        long index = 0;
+        boolean inMessage = false;
+        boolean previousBlank = true;
+        try (ByteLineReader reader = new ByteLineReader(Files.newInputStream(source))) {
+            while (reader.readLineBytes()) {
+                byte[] line = reader.lineBuffer();
+                int length = reader.lineLength();
+                if (previousBlank && startsWith(line, length, FROM, 0)) {
+                    if (inMessage && index++ >= skip) {
+                        raw.add(new ImportedMessage(message, messageLength, -1));
+                        rawBytes += message.length;
+                        if (raw.size() == BATCH_SIZE || rawBytes >= BATCH_BYTES) {
+                            writer.submit(parseAll(raw, MailboxMigrator::parseMboxMessage), first);
+                            first += raw.size();
+                            raw = new ArrayList<>(BATCH_SIZE);
+                            rawBytes = 0;
+                        }
+                        message = new byte[8192];
+                    }
+                    // La ligne From_ est gardée pour en extraire la date de réception
+                    messageLength = 0;
+                    message = appendLine(message, messageLength, line, length);
+                    messageLength += length + 1;
+                    inMessage = true;
+                } else if (inMessage) {
+                    message = appendLine(message, messageLength, line, length);
+                    messageLength += length + 1;
+                }
+                previousBlank = length == 0;
+            }
+        }
+        if (inMessage && index >= skip) {
+            raw.add(new ImportedMessage(message, messageLength, -1));
+        }
+        if (!raw.isEmpty()) {
+            writer.submit(parseAll(raw, MailboxMigrator::parseMboxMessage), first);
+        }
+    }
+
+    // Ajoute une ligne et son '\n' au message, en agrandissant le tableau si nécessaire
+    private static byte[] appendLine(byte[] message, int messageLength, byte[] line, int length) {
+        if (messageLength + length + 1 > message.length) {
+            message = Arrays.copyOf(message, Math.max(message.length * 2, messageLength + length + 1));
+        }
+        System.arraycopy(line, 0, message, messageLength, length);
+        message[messageLength + length] = '\n';
+        return message;
+    }
+
+    /**
+     * Parcourt les répertoires cur/ et new/ de la boîte (et de ses sous-dossiers Maildir++
+     * si allFolders) ; la lecture et la normalisation des fichiers se font en parallèle,
+     * par lots bornés d'après la taille des fichiers.
+     */
+    private void readMaildir(Path source, boolean allFolders, long skip, ImportWriter writer) throws Exception {
+        List<Path> files;
+        // Par défaut, seulement la boîte de réception : pas de Trash ni de Junk dans l'inbox POP3
+        try (Stream<Path> walk = allFolders ? Files.walk(source)
+                : Stream.of(source.resolve("cur"), source.resolve("new")).filter(Files::isDirectory)
+                        .flatMap(MailboxMigrator::listDirectory)) {
+            files = walk.filter(Files::isRegularFile)
+                    .filter(path -> {
+                        Path parent = path.getParent();
+                        String dir = parent == null ? "" : parent.getFileName().toString();
+                        return dir.equals("cur") || dir.equals("new");
+                    })
+                    // Les noms Maildir commencent par l'horodatage de livraison
+                    .sorted((a, b) -> a.getFileName().toString().compareTo(b.getFileName().toString()))
+                    .collect(Collectors.toList());
+        }
+        int start = (int) Math.min(skip, files.size());
+        while (start < files.size()) {
+            int end = start;
+            long bytes = 0;
+            while (end < files.size() && end - start < BATCH_SIZE && bytes < BATCH_BYTES) {
+                bytes += Files.size(files.get(end++));
+            }
+            writer.submit(parseAll(files.subList(start, end), path -> {
+                byte[] data = Files.readAllBytes(path);
+                return new ImportedMessage(data, normalizeLineEndings(data), maildirTime(path));
+            }), start);
+            start = end;
+        }
+    }
+
+    private static Stream<Path> listDirectory(Path directory) {
+        try {
+            return Files.list(directory);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private interface Parser<T, R> {
+        R parse(T input) throws IOException;
+    }
+
+    // Message à importer (les length premiers octets de content) et sa date de
+    // réception d'origine (-1 si inconnue)
+    private static class ImportedMessage {
+        final byte[] content;
+        final int length;
+        final long receivedTime;
+
+        ImportedMessage(byte[] content, int length, long receivedTime) {
+            this.content = content;
+            this.length = length;
+            this.receivedTime = receivedTime;
+        }
+    }
+
+    // Lot analysé : messages consécutifs de la source à partir de la position first,
+    // et nombre d'octets qu'il occupe (taille des tableaux, pas seulement du contenu)
+    private static class Batch {
+        final List<ImportedMessage> messages;
+        final long first;
+        final int bytes;
+
+        Batch(List<ImportedMessage> messages, long first, int bytes) {
+            this.messages = messages;
+            this.first = first;
+            this.bytes = bytes;
+        }
+    }
+
+    // Analyse un lot en parallèle dans le ForkJoinPool, en conservant l'ordre des messages
+    private <T, R> List<R> parseAll(List<T> inputs, Parser<T, R> parser) throws Exception {
+        List<Callable<R>> tasks = new ArrayList<>(inputs.size());
+        for (T input : inputs) {
+            tasks.add(() -> parser.parse(input));
+        }
+        List<R> messages = new ArrayList<>(inputs.size());
+        for (Future<R> future : pool.invokeAll(tasks)) {
+            try {
+                messages.add(future.get());
+            } catch (ExecutionException e) {
+                throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+            }
+        }
+        return messages;
+    }
+
+    // Lit la date de la ligne From_, retire l'échappement mboxrd (">From " -> "From ")
+    // et la ligne vide de séparation. Le message est réécrit sur place, dans le même tableau.
+    private static ImportedMessage parseMboxMessage(ImportedMessage raw) {
+        byte[] data = raw.content;
+        int length = raw.length;
+        if (length >= 2 && data[length - 1] == '\n' && data[length - 2] == '\n') {
+            length--;
+        }
+        int start = 0;
+        while (start < length && data[start] != '\n') {
+            start++;
+        }
+        long receivedTime = parseFromLineDate(new String(data, 0, start, StandardCharsets.ISO_8859_1));
+        start++;
+        int written = 0;
+        while (start < length) {
+            int end = start;
+            while (end < length && data[end] != '\n') {
+                end++;
+            }
+            int quotes = 0;
+            while (start + quotes < end && data[start + quotes] == '>') {
+                quotes++;
+            }
+            int offset = quotes > 0 && startsWith(data, end, FROM, start + quotes) ? 1 : 0;
+            int lineLength = Math.min(end + 1, length) - start - offset;
+            System.arraycopy(data, start + offset, data, written, lineLength);
+            written += lineLength;
+            start = end + 1;
+        }
+        return new ImportedMessage(data, written, receivedTime);
+    }
+
+    // "From sender Thu Jan  1 00:00:00 1970" : la date suit l'expéditeur (heure lue en UTC)
+    private static long parseFromLineDate(String fromLine) {
+        String[] tokens = fromLine.trim().split("\\s+");
+        if (tokens.length < 7) {
+            return -1;
+        }
+        try {
+            String date = String.join(" ", Arrays.asList(tokens).subList(2, 7));
+            return Instant.from(MBOX_DATE_PARSER.parse(date)).toEpochMilli();
+        } catch (DateTimeParseException e) {
+            return -1;
+        }
+    }
+
+    // Les noms Maildir commencent par l'heure de livraison en secondes, à défaut la date du fichier
+    private static long maildirTime(Path path) throws IOException {
+        String name = path.getFileName().toString();
+        int digits = 0;
+        while (digits < name.length() && Character.isDigit(name.charAt(digits))) {
+            digits++;
+        }
+        if (digits > 0 && digits <= 12 && (digits == name.length() || name.charAt(digits) == '.')) {
+            return Long.parseLong(name.substring(0, digits)) * 1000;
+        }
+        return Files.getLastModifiedTime(path).toMillis();
+    }
+
+    // Le stockage utilise des fins de ligne LF, comme les messages reçus en SMTP.
+    // La conversion se fait sur place et retourne la nouvelle longueur.
+    private static int normalizeLineEndings(byte[] data) {
+        int length = 0;
+        for (int i = 0; i < data.length; i++) {
+            if (data[i] == '\r' && i + 1 < data.length && data[i + 1] == '\n') {
+                continue;
+            }
+            data[length++] = data[i];
+        }
+        return length;
+    }
+
+    /**
+     * Thread d'écriture : vide la file lot par lot et enregistre le point de reprise
+     * après chaque lot. La file est bornée en octets : submit attend que le thread
+     * d'écriture ait libéré assez de place. Toute erreur du thread d'écriture (y compris
+     * RuntimeException ou Error, un OutOfMemoryError par exemple) est enregistrée ; il
+     * continue alors de vider la file sans écrire, et le producteur s'arrête au lot suivant.
+     * Si le thread meurt malgré tout, submit ne l'attend pas indéfiniment.
+     */
+    private static class ImportWriter implements Runnable {
+        private final BlockingQueue<Batch> queue = new LinkedBlockingQueue<>();
+        private final Semaphore queuedBytes = new Semaphore(QUEUE_BYTES);
+        private final Thread thread = new Thread(this, "mailbox-import-writer");
+        private final String user;
+        private final String sourceKey;
+        private final Path checkpoint;
+        private final String sourceId;
+        private long written;
+        private volatile Throwable error;
+
+        ImportWriter(String user, String sourceKey, Path checkpoint, String sourceId) {
+            this.user = user;
+            this.sourceKey = sourceKey;
+            this.checkpoint = checkpoint;
+            this.sourceId = sourceId;
+        }
+
+        void start() {
+            thread.start();
+        }
+
+        /**
+         * Transmet au thread d'écriture un lot analysé dont le premier message est à la
+         * position first dans la source. Si une écriture a échoué, l'erreur est remontée
+         * tout de suite pour ne pas lire le reste de la source pour rien.
+         */
+        void submit(List<ImportedMessage> messages, long first) throws Exception {
+            long bytes = 0;
+            for (ImportedMessage message : messages) {
+                bytes += message.content.length;
+            }
+            // Un lot plus gros que la file entière (un seul message énorme) y passe seul
+            Batch batch = new Batch(messages, first, (int) Math.min(bytes, QUEUE_BYTES));
+            while (!queuedBytes.tryAcquire(batch.bytes, 1, TimeUnit.SECONDS)) {
+                checkError();
+                if (!thread.isAlive()) {
+                    throw new IllegalStateException("Import writer thread has stopped");
+                }
+            }
+            checkError();
+            queue.put(batch);
+        }
+
+        // Signale la fin de l'import (la file n'est bornée que par submit : put ne bloque pas)
+        // et attend que le thread d'écriture ait terminé
+        void finish() throws InterruptedException {
+            queue.put(END_OF_IMPORT);
+            thread.join();
+        }
+
+        // Remonte dans le thread appelant l'erreur du thread d'écriture, s'il y en a une
+        void checkError() throws Exception {
+            Throwable e = error;
+            if (e instanceof Exception) {
+                throw (Exception) e;
+            } else if (e instanceof Error) {
+                throw (Error) e;
+            } else if (e != null) {
+                throw new Exception(e);
+            }
+        }
+
+        @Override
+        public void run() {
+            try {
+                Batch batch;
+                while ((batch = queue.take()) != END_OF_IMPORT) {
+                    try {
+                        if (error == null) {
+                            long index = batch.first;
+                            for (ImportedMessage message : batch.messages) {
+                                String name = String.format("import-%s-%012d.txt", sourceKey, index++);
+                                try {
+                                    FileUtils.storeEmail(user, name, message.content, message.length, message.receivedTime);
+                                    written++;
+                                } catch (FileAlreadyExistsException e) {
+                                    // Déjà écrit par une exécution interrompue avant son point de reprise
+                                }
+                            }
+                            writeCheckpoint(checkpoint, sourceId, index);
+                        }
+                    } catch (Throwable e) {
+                        error = e;
+                    } finally {
+                        queuedBytes.release(batch.bytes);
+                    }
+                }
+            } catch (Throwable e) {
+                error = e;
+                if (e instanceof InterruptedException) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+    }
+
+    // Identifiant court et stable d'une source, pour nommer ses messages et son point de reprise
+    private static String sourceKey(String sourceId) throws NoSuchAlgorithmException {
+        byte[] digest = MessageDigest.getInstance("SHA-256").digest(sourceId.getBytes(StandardCharsets.UTF_8));
+        StringBuilder key = new StringBuilder();
+        for (int i = 0; i < 8; i++) {
+            key.append(String.format("%02x", digest[i]));
+        }
+        return key.toString();
+    }
+
+    private static long readCheckpoint(Path checkpoint, String sourceId) throws IOException {
+        if (!Files.exists(checkpoint)) {
+            return 0;
+        }
+        List<String> lines = Files.readAllLines(checkpoint, StandardCharsets.UTF_8);
+        // Sécurité en cas de collision de sourceKey : le point de reprise d'une autre source est ignoré
+        if (lines.size() < 2 || !lines.get(0).equals(sourceId)) {
+            return 0;
+        }
+        return Long.parseLong(lines.get(1).trim());
+    }
+
+    private static void writeCheckpoint(Path checkpoint, String sourceId, long imported) throws IOException {
+        Files.createDirectories(checkpoint.getParent());
+        Path temp = checkpoint.resolveSibling(checkpoint.getFileName() + ".tmp");
+        Files.write(temp, List.of(sourceId, Long.toString(imported)), StandardCharsets.UTF_8);
+        Files.move(temp, checkpoint, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    // ---------------------------------------------------------------- Export
+
+    /**
+     * Exporte la boîte d'un utilisateur et retourne le nombre de messages écrits.
+     */
+    public long exportMailbox(boolean mbox, String user, Path destination) throws Exception {
+        File userDir = new File("mailserver/" + user);
+        if (!userDir.isDirectory()) {
+            throw new IllegalArgumentException("Mailbox not found: " + user);
+        }
+        List<File> emails = FileUtils.listEmails(userDir);
+        return mbox ? exportMbox(emails, destination) : exportMaildir(emails, destination);
+    }
+
+    private long exportMbox(List<File> emails, Path destination) throws Exception {
+        long count = 0;
+        try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(destination))) {
+            // Lecture et conversion en parallèle, écriture séquentielle dans l'ordre de la boîte
+            // Lots bornés comme à l'import (256 messages ou 8 Mo stockés)
+            int start = 0;
+            while (start < emails.size()) {
+                int end = start;
+                long bytes = 0;
+                while (end < emails.size() && end - start < BATCH_SIZE && bytes < BATCH_BYTES) {
+                    bytes += emails.get(end++).length();
+                }
+                for (byte[] message : parseAll(emails.subList(start, end), MailboxMigrator::toMboxMessage)) {
+                    out.write(message);
+                    count++;
+                }
+                start = end;
+            }
+        }
+        return count;
+    }
+
+    private long exportMaildir(List<File> emails, Path destination) throws Exception {
+        Path tmp = Files.createDirectories(destination.resolve("tmp"));
+        Path cur = Files.createDirectories(destination.resolve("cur"));
+        Files.createDirectories(destination.resolve("new"));
+
+        List<Callable<Boolean>> tasks = new ArrayList<>(emails.size());
+        for (File email : emails) {
+            tasks.add(() -> {
+                // Nom Maildir standard : heure de livraison en secondes, puis identifiant unique
+                String name = (email.lastModified() / 1000) + "." + email.getName().replaceFirst("\\.txt$", "")
+                        + ".mailsystem:2,";
+                Path target = cur.resolve(name);
+                if (Files.exists(target)) {
+                    return false; // Déjà exporté lors d'une exécution précédente
+                }
+                // Écriture dans tmp/ puis déplacement, comme le prévoit le format Maildir
+                Path temp = tmp.resolve(name);
+                try (InputStream in = MessageFile.open(email).openContent()) {
+                    Files.copy(in, temp, StandardCopyOption.REPLACE_EXISTING);
+                }
+                Files.setLastModifiedTime(temp, Files.getLastModifiedTime(email.toPath()));
+                Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE);
+                return true;
+            });
+        }
+        long count = 0;
+        for (Future<Boolean> future : pool.invokeAll(tasks)) {
+            try {
+                if (future.get()) {
+                    count++;
+                }
+            } catch (ExecutionException e) {
+                throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+            }
+        }
+        return count;
+    }
+
+    // Ligne "From " de séparation, échappement mboxrd et ligne vide finale
+    private static byte[] toMboxMessage(File email) throws IOException {
+        byte[] content;
+        try (InputStream in = MessageFile.open(email).openContent()) {
+            content = in.readAllBytes();
+        }
+        ByteArrayOutputStream message = new ByteArrayOutputStream(content.length + 64);
+        String separator = "From MAILER-DAEMON " + MBOX_DATE.format(Instant.ofEpochMilli(email.lastModified())) + "\n";
+        message.writeBytes(separator.getBytes(StandardCharsets.US_ASCII));
+        int start = 0;
+        while (start < content.length) {
+            int end = start;
+            while (end < content.length && content[end] != '\n') {
+                end++;
+            }
+            int quotes = 0;
+            while (start + quotes < end && content[start + quotes] == '>') {
+                quotes++;
+            }
+            if (startsWith(content, end, FROM, start + quotes)) {
+                message.write('>');
+            }
+            message.write(content, start, end - start);
+            message.write('\n');
+            start = end + 1;
+        }
+        message.write('\n');
+        return message.toByteArray();
+    }
+
+    private static boolean startsWith(byte[] data, int length, byte[] prefix, int offset) {
+        if (length - offset < prefix.length) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length; i++) {
+            if (data[offset + i] != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
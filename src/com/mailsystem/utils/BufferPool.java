@@ -0,0 +1,42 @@
+package com.mailsystem.utils;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Pool partagé de tampons d'octets utilisés par les lecteurs/écrivains de lignes
+ * des handlers SMTP et POP3, pour éviter d'allouer un tampon par connexion.
+ */
+public class BufferPool {
+    public static final int BUFFER_SIZE = 8192;
+    private static final int MAX_POOLED = 64;
+
+    private static final ConcurrentLinkedQueue<ByteBuffer> pool = new ConcurrentLinkedQueue<>();
+    private static final AtomicInteger pooled = new AtomicInteger();
+
+    private BufferPool() {
+    }
+
+    public static ByteBuffer acquire() {
+        ByteBuffer buffer = pool.poll();
+        if (buffer == null) {
+            return ByteBuffer.allocate(BUFFER_SIZE);
+        }
+        pooled.decrementAndGet();
+        buffer.clear();
+        return buffer;
+    }
+
+    public static void release(ByteBuffer buffer) {
+        if (buffer == null) {
+            return;
+        }
+        // Ne garder qu'un nombre borné de tampons, le reste est laissé au GC
+        if (pooled.incrementAndGet() <= MAX_POOLED) {
+            pool.offer(buffer);
+        } else {
+            pooled.decrementAndGet();
+        }
+    }
+}
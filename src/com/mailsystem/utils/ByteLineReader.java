@@ -0,0 +1,109 @@
+package com.mailsystem.utils;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Lecteur de lignes au niveau octet : découpe le flux sur LF (en retirant un CR
+ * éventuel) sans aucun décodage de charset. Le contenu des messages reste donc
+ * tel quel (8BITMIME), seules les commandes sont converties en String.
+ */
+public class ByteLineReader implements Closeable {
+    private final InputStream in;
+    private ByteBuffer buffer;
+    private byte[] line = new byte[256];
+    private int lineLength;
+
+    public ByteLineReader(InputStream in) {
+        this.in = in;
+        this.buffer = BufferPool.acquire();
+        this.buffer.flip(); // Tampon vide au départ
+    }
+
+    /**
+     * Lit la ligne suivante dans {@link #lineBuffer()} (sans le CRLF/LF final).
+     * Retourne false en fin de flux.
+     */
+    public boolean readLineBytes() throws IOException {
+        lineLength = 0;
+        boolean read = false;
+        while (true) {
+            if (!buffer.hasRemaining() && !fill()) {
+                return read;
+            }
+            read = true;
+            byte[] data = buffer.array();
+            int start = buffer.position();
+            int end = buffer.limit();
+            int i = start;
+            while (i < end && data[i] != '\n') {
+                i++;
+            }
+            append(data, start, i - start);
+            if (i < end) {
+                buffer.position(i + 1);
+                if (lineLength > 0 && line[lineLength - 1] == '\r') {
+                    lineLength--;
+                }
+                return true;
+            }
+            buffer.position(end);
+        }
+    }
+
+    /**
+     * Lit une ligne de commande. Les octets sont convertis un pour un (ISO-8859-1),
+     * ce qui ne perd rien et ne coûte pas de décodage.
+     */
+    public String readLine() throws IOException {
+        return readLineBytes() ? new String(line, 0, lineLength, StandardCharsets.ISO_8859_1) : null;
+    }
+
+    /**
+     * Lit une ligne de données décodée avec le charset donné (identifiants AUTH en UTF-8 par exemple).
+     */
+    public String readLine(Charset charset) throws IOException {
+        return readLineBytes() ? new String(line, 0, lineLength, charset) : null;
+    }
+
+    public byte[] lineBuffer() {
+        return line;
+    }
+
+    public int lineLength() {
+        return lineLength;
+    }
+
+    private boolean fill() throws IOException {
+        buffer.clear();
+        int n = in.read(buffer.array(), 0, buffer.capacity());
+        if (n <= 0) {
+            buffer.limit(0);
+            return false;
+        }
+        buffer.limit(n);
+        return true;
+    }
+
+    private void append(byte[] data, int offset, int length) {
+        if (lineLength + length > line.length) {
+            line = Arrays.copyOf(line, Math.max(line.length * 2, lineLength + length));
+        }
+        System.arraycopy(data, offset, line, lineLength, length);
+        lineLength += length;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (buffer != null) {
+            BufferPool.release(buffer);
+            buffer = null;
+        }
+        in.close();
+    }
+}
@@ -0,0 +1,116 @@
+package com.mailsystem.utils;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Écrivain de lignes au niveau octet terminant chaque ligne par CRLF.
+ * Comme PrintWriter, les erreurs d'écriture ne sont pas propagées : elles sont
+ * mémorisées et consultables avec {@link #checkError()}.
+ */
+public class ByteLineWriter implements Closeable {
+    private static final byte[] CRLF = {'\r', '\n'};
+
+    private final OutputStream out;
+    private ByteBuffer buffer;
+    private boolean error;
+
+    public ByteLineWriter(OutputStream out) {
+        this.out = out;
+        this.buffer = BufferPool.acquire();
+    }
+
+    /**
+     * Écrit une réponse de protocole suivie de CRLF et vide le tampon.
+     */
+    public void println(String line) {
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            put((byte) (c < 256 ? c : '?'));
+        }
+        write(CRLF, 0, CRLF.length);
+        flush();
+    }
+
+    /**
+     * Écrit une ligne brute suivie de CRLF, sans vider le tampon (corps de message).
+     * Si dotStuffing est vrai, une ligne commençant par '.' est préfixée d'un '.'.
+     */
+    public void writeLine(byte[] data, int offset, int length, boolean dotStuffing) {
+        if (dotStuffing && length > 0 && data[offset] == '.') {
+            put((byte) '.');
+        }
+        write(data, offset, length);
+        write(CRLF, 0, CRLF.length);
+    }
+
+    public void write(byte[] data, int offset, int length) {
+        while (length > 0) {
+            if (!buffer.hasRemaining()) {
+                drain();
+            }
+            int chunk = Math.min(length, buffer.remaining());
+            buffer.put(data, offset, chunk);
+            offset += chunk;
+            length -= chunk;
+        }
+    }
+
+    /**
+     * Écrit le contenu restant de src tel quel (message déjà au format de transmission).
+     */
+    public void write(ByteBuffer src) {
+        while (src.hasRemaining()) {
+            if (!buffer.hasRemaining()) {
+                drain();
+            }
+            int chunk = Math.min(src.remaining(), buffer.remaining());
+            src.get(buffer.array(), buffer.position(), chunk);
+            buffer.position(buffer.position() + chunk);
+        }
+    }
+
+    public void flush() {
+        drain();
+        try {
+            out.flush();
+        } catch (IOException e) {
+            error = true;
+        }
+    }
+
+    public boolean checkError() {
+        return error;
+    }
+
+    private void put(byte b) {
+        if (!buffer.hasRemaining()) {
+            drain();
+        }
+        buffer.put(b);
+    }
+
+    private void drain() {
+        if (buffer.position() == 0) {
+            return;
+        }
+        try {
+            out.write(buffer.array(), 0, buffer.position());
+        } catch (IOException e) {
+            error = true;
+        }
+        buffer.clear();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (buffer != null) {
+            flush();
+            BufferPool.release(buffer);
+            buffer = null;
+        }
+        out.close();
+    }
+}
@@ -1,34 +1,170 @@
 package com.mailsystem.utils;
 
+import java.io.File;
 import java.io.IOException;
+import java.nio.file.FileAlreadyExistsException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class FileUtils {
-    public static void saveEmail(String user, String content) {
-        // Nettoyer l'adresse email en supprimant les caractères '<' et '>'
-        String cleanedUser = user.replaceAll("[<>]", "");
+    // Compression des messages stockés, activée avec -Dmailsystem.compress=true
+    private static final boolean COMPRESS = Boolean.getBoolean("mailsystem.compress");
+    private static final int COMPRESSION_THRESHOLD = 256; // En dessous, deflate ne fait rien gagner
 
-        // Valider l'adresse email (optionnel)
-        if (!isValidEmail(cleanedUser)) {
-            System.err.println("Invalid email address: " + cleanedUser);
-            return;
+    // Dernier identifiant de message attribué (basé sur l'heure en ms)
+    private static final AtomicLong lastMessageId = new AtomicLong();
+
+    public static void saveEmail(String user, byte[] content, int length) throws IOException {
+        saveEmail(List.of(user), content, length);
+    }
+
+    /**
+     * Livre un message à plusieurs destinataires ; le cache ne garde qu'une copie du contenu.
+     * Si le message n'a pas pu être enregistré pour un destinataire, l'erreur est remontée
+     * (après livraison aux autres) pour que le client SMTP ne reçoive pas de 250.
+     */
+    public static void saveEmail(List<String> users, byte[] content, int length) throws IOException {
+        List<Path> paths = new ArrayList<>(users.size());
+        IOException failure = null;
+        for (String user : users) {
+            // Nettoyer l'adresse email en supprimant les caractères '<' et '>'
+            String cleanedUser = user.replaceAll("[<>]", "");
+
+            // Valider l'adresse email (optionnel)
+            if (!isValidEmail(cleanedUser)) {
+                System.err.println("Invalid email address: " + cleanedUser);
+                continue;
+            }
+
+            try {
+                paths.add(storeEmail(cleanedUser, content, length));
+            } catch (IOException e) {
+                e.printStackTrace();
+                if (failure == null) {
+                    failure = e;
+                } else {
+                    failure.addSuppressed(e);
+                }
+            }
+        }
+        // Les messages sont souvent relevés juste après leur livraison
+        if (!paths.isEmpty()) {
+            MessageCache.getInstance().put(paths, content, length);
         }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    /**
+     * Écrit un message dans la boîte de l'utilisateur sans passer par le cache
+     * (utilisé aussi pour les imports en masse) et retourne le chemin du fichier.
+     */
+    public static Path storeEmail(String user, byte[] content, int length) throws IOException {
+        return storeEmail(user, content, length, -1);
+    }
+
+    /**
+     * Comme storeEmail, en datant le fichier de receivedTime (ms) quand il est connu (>= 0) :
+     * la boîte est triée par date de fichier, un message importé garde ainsi sa place.
+     */
+    public static Path storeEmail(String user, byte[] content, int length, long receivedTime) throws IOException {
+        return storeEmail(user, null, content, length, receivedTime);
+    }
 
-        String directory = "mailserver/" + cleanedUser + "/";
-        String filename = System.currentTimeMillis() + ".txt";
+    /**
+     * Comme storeEmail, sous un nom de fichier imposé (null pour un identifiant attribué) :
+     * utilisé par les imports pour qu'une reprise ne crée pas de doublons. Si ce nom existe
+     * déjà, rien n'est écrit et FileAlreadyExistsException est levée.
+     */
+    public static Path storeEmail(String user, String name, byte[] content, int length, long receivedTime) throws IOException {
+        if (!isValidEmail(user)) {
+            throw new IOException("Invalid email address: " + user);
+        }
+        if (name != null && (name.startsWith(".") || name.contains("/") || name.contains(File.separator))) {
+            throw new IOException("Invalid message file name: " + name);
+        }
+        Path directory = Path.of("mailserver/" + user + "/");
+        // Créer le répertoire de l'utilisateur s'il n'existe pas
+        Files.createDirectories(directory);
+        // Écrire d'abord dans un fichier temporaire (ignoré par listEmails) : un client POP3
+        // ne voit jamais de message à moitié écrit
+        // (nom unique plutôt que createTempFile, qui imposerait des droits 0600)
+        Path temp = directory.resolve(".tmp-" + UUID.randomUUID() + ".part");
+        try {
+            // Sauvegarder l'email dans un fichier, octets bruts sans ré-encodage
+            MessageFile.write(temp, content, length, COMPRESS && length >= COMPRESSION_THRESHOLD);
+            if (receivedTime >= 0) {
+                Files.setLastModifiedTime(temp, FileTime.fromMillis(receivedTime));
+            }
+            if (name != null) {
+                Path path = directory.resolve(name);
+                publish(temp, path);
+                return path;
+            }
+            while (true) {
+                Path path = directory.resolve(nextMessageId() + ".txt");
+                try {
+                    publish(temp, path);
+                    return path;
+                } catch (FileAlreadyExistsException e) {
+                    // Identifiant déjà pris (par une autre JVM) : essayer le suivant
+                }
+            }
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    // Donne son nom définitif au message sans jamais écraser un fichier existant
+    private static void publish(Path temp, Path path) throws IOException {
         try {
-            // Créer le répertoire de l'utilisateur s'il n'existe pas
-            Files.createDirectories(Path.of(directory));
-            // Sauvegarder l'email dans un fichier
-            Files.write(Path.of(directory + filename), content.getBytes());
-        } catch (IOException e) {
-            e.printStackTrace();
+            // Le lien physique est atomique et échoue si la cible existe déjà
+            Files.createLink(path, temp);
+        } catch (FileAlreadyExistsException e) {
+            throw e;
+        } catch (IOException | UnsupportedOperationException e) {
+            // Système de fichiers sans liens physiques (FAT, exFAT, certains montages SMB ou NFS,
+            // qui échouent en EPERM plutôt qu'en UnsupportedOperationException) :
+            // move sans REPLACE_EXISTING, qui échoue lui aussi si la cible existe
+            Files.move(temp, path);
         }
     }
 
+    /**
+     * Liste les messages d'une boîte, du plus ancien au plus récent.
+     */
+    public static List<File> listEmails(File userDir) {
+        List<File> emails = new ArrayList<>();
+        File[] files = userDir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                // Les fichiers cachés (temporaires en cours d'écriture) ne sont pas des messages
+                if (file.isFile() && !file.getName().startsWith(".")) {
+                    emails.add(file);
+                }
+            }
+            // Trier par date de modification, puis par nom (identifiants croissants) à date égale
+            emails.sort(Comparator.comparingLong(File::lastModified).thenComparing(File::getName));
+        }
+        return emails;
+    }
+
     public static boolean isValidEmail(String email) {
         String regex = "^[A-Za-z0-9+_.-]+@[A-Za-z0-9.-]+$";
         return email.matches(regex);
     }
-}
\ No newline at end of file
+
+    // Identifiants strictement croissants : deux messages enregistrés dans la même
+    // milliseconde (plusieurs destinataires, import en masse) n'écrasent pas le même fichier
+    private static long nextMessageId() {
+        long now = System.currentTimeMillis();
+        return lastMessageId.accumulateAndGet(now, (last, time) -> Math.max(last + 1, time));
+    }
+}
@@ -0,0 +1,198 @@
+package com.mailsystem.utils;
+
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Cache partagé du contenu des messages récemment livrés, pour servir RETR sans
+ * relire le disque. Les messages sont gardés hors du tas (buffers directs) déjà au
+ * format de transmission POP3 : lignes en CRLF et dot-stuffing appliqué.
+ *
+ * Le cache n'a d'intérêt que si POP3 tourne dans le même processus que SMTP : il est
+ * donc désactivé par défaut et activé par MailServerLauncher dans ce cas.
+ * La taille totale est alors bornée (-Dmailsystem.cache.bytes, 32 Mo par défaut,
+ * 0 pour désactiver). Un message plus gros que 1/16 du budget n'est pas admis, et
+ * les entrées les moins récemment lues sont évincées en premier.
+ */
+public class MessageCache {
+    private static final long DEFAULT_CAPACITY = 32L * 1024 * 1024;
+    private static final MessageCache instance = new MessageCache(0);
+
+    private volatile long capacity;
+    private volatile long maxEntrySize;
+    private final LinkedHashMap<Path, ByteBuffer> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long usedBytes;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    MessageCache(long capacity) {
+        setCapacity(capacity);
+    }
+
+    public static MessageCache getInstance() {
+        return instance;
+    }
+
+    /**
+     * Active le cache avec le budget de -Dmailsystem.cache.bytes (32 Mo par défaut).
+     */
+    public void enable() {
+        setCapacity(Long.getLong("mailsystem.cache.bytes", DEFAULT_CAPACITY));
+    }
+
+    private synchronized void setCapacity(long capacity) {
+        this.capacity = Math.max(0, capacity);
+        this.maxEntrySize = this.capacity / 16;
+    }
+
+    /**
+     * Ajoute (ou remplace) le contenu d'un message tel qu'il est stocké (lignes en '\n').
+     */
+    public void put(Path path, byte[] content, int length) {
+        put(List.of(path), content, length);
+    }
+
+    /**
+     * Ajoute un même message livré à plusieurs boîtes. Il n'est converti qu'une fois et
+     * toutes les entrées partagent le même buffer ; chacune est comptée dans le budget,
+     * qui reste donc une borne haute de la mémoire réellement utilisée.
+     */
+    public void put(List<Path> paths, byte[] content, int length) {
+        if (capacity == 0) {
+            return;
+        }
+        long size = wireSize(content, length);
+        if (size > maxEntrySize) {
+            for (Path path : paths) {
+                invalidate(path);
+            }
+            return;
+        }
+        // Conversion hors verrou, seule la mise à jour de la table est synchronisée
+        ByteBuffer buffer = ByteBuffer.allocateDirect((int) size);
+        int start = 0;
+        for (int i = 0; i <= length; i++) {
+            if (i == length && start == length) {
+                break;
+            }
+            if (i == length || content[i] == '\n') {
+                if (i > start && content[start] == '.') {
+                    buffer.put((byte) '.');
+                }
+                buffer.put(content, start, i - start);
+                buffer.put((byte) '\r').put((byte) '\n');
+                start = i + 1;
+            }
+        }
+        buffer.flip();
+
+        synchronized (this) {
+            for (Path path : paths) {
+                ByteBuffer previous = entries.put(key(path), buffer);
+                if (previous != null) {
+                    usedBytes -= previous.capacity();
+                }
+                usedBytes += size;
+            }
+            Iterator<Map.Entry<Path, ByteBuffer>> iterator = entries.entrySet().iterator();
+            while (usedBytes > capacity && iterator.hasNext()) {
+                Map.Entry<Path, ByteBuffer> eldest = iterator.next();
+                usedBytes -= eldest.getValue().capacity();
+                iterator.remove();
+                evictions.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * Retourne une vue en lecture seule du message au format de transmission, ou null.
+     * Un cache désactivé ne compte pas d'échecs : ses statistiques restent à zéro.
+     */
+    public ByteBuffer get(Path path) {
+        if (capacity == 0) {
+            return null;
+        }
+        ByteBuffer buffer;
+        synchronized (this) {
+            buffer = entries.get(key(path));
+        }
+        if (buffer == null) {
+            misses.incrementAndGet();
+            return null;
+        }
+        hits.incrementAndGet();
+        return buffer.asReadOnlyBuffer();
+    }
+
+    public void invalidate(Path path) {
+        Path key = key(path);
+        synchronized (this) {
+            ByteBuffer previous = entries.remove(key);
+            if (previous != null) {
+                usedBytes -= previous.capacity();
+            }
+        }
+    }
+
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    public double getHitRate() {
+        long total = hits.get() + misses.get();
+        return total == 0 ? 0 : (double) hits.get() / total;
+    }
+
+    public long getEvictionCount() {
+        return evictions.get();
+    }
+
+    public synchronized long getUsedBytes() {
+        return usedBytes;
+    }
+
+    public long getCapacity() {
+        return capacity;
+    }
+
+    public boolean isEnabled() {
+        return capacity > 0;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("hits=%d misses=%d hitRate=%.2f evictions=%d used=%d/%d bytes",
+                getHitCount(), getMissCount(), getHitRate(), getEvictionCount(), getUsedBytes(), capacity);
+    }
+
+    private static Path key(Path path) {
+        return path.toAbsolutePath().normalize();
+    }
+
+    // Taille au format de transmission : CRLF à chaque ligne, plus un '.' par ligne commençant par '.'
+    private static long wireSize(byte[] content, int length) {
+        long size = 0;
+        int start = 0;
+        for (int i = 0; i < length; i++) {
+            if (content[i] == '\n') {
+                size += i - start + 2 + (i > start && content[start] == '.' ? 1 : 0);
+                start = i + 1;
+            }
+        }
+        if (start < length) {
+            size += length - start + 2 + (content[start] == '.' ? 1 : 0);
+        }
+        return size;
+    }
+}
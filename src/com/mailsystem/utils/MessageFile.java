@@ -0,0 +1,280 @@
+package com.mailsystem.utils;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.zip.Deflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Format de stockage d'un message dans mailserver/&lt;user&gt;/.
+ *
+ * Un message écrit par le serveur commence par un en-tête binaire :
+ * magic "MSGF", version, drapeaux, taille brute, taille RFC (lignes en CRLF),
+ * nombre de lignes, longueur du bloc d'en-têtes et nombre de lignes du corps.
+ * Suivent le bloc d'en-têtes du message (jusqu'à la ligne vide incluse), toujours
+ * en clair, puis le corps, brut ou compressé en deflate. Les en-têtes et le début
+ * du corps peuvent ainsi être lus par accès positionné, sans parcourir le fichier.
+ *
+ * Les fichiers de version 1 (contenu entier compressé, sans index) et les anciens
+ * fichiers sans en-tête (texte brut) restent lisibles.
+ */
+public class MessageFile {
+    private static final int MAGIC = 0x4D534746; // "MSGF"
+    private static final int VERSION = 2;
+    private static final int HEADER_SIZE_V1 = 4 + 1 + 1 + 8 + 8 + 4;
+    private static final int HEADER_SIZE = HEADER_SIZE_V1 + 4 + 4;
+    public static final int FLAG_DEFLATE = 1;
+
+    private final File file;
+    private final boolean compressed;
+    private final long dataOffset;
+    private final long rawSize;
+    private final long rfcSize;
+    private final int headerLength; // -1 si le fichier n'est pas indexé
+    private final int bodyLines;    // -1 si le fichier n'est pas indexé
+
+    private MessageFile(File file, boolean compressed, long dataOffset, long rawSize, long rfcSize,
+                        int headerLength, int bodyLines) {
+        this.file = file;
+        this.compressed = compressed;
+        this.dataOffset = dataOffset;
+        this.rawSize = rawSize;
+        this.rfcSize = rfcSize;
+        this.headerLength = headerLength;
+        this.bodyLines = bodyLines;
+    }
+
+    /**
+     * Lit uniquement l'en-tête du fichier, sans toucher au contenu.
+     */
+    public static MessageFile open(File file) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), HEADER_SIZE))) {
+            if (file.length() >= HEADER_SIZE_V1 && in.readInt() == MAGIC) {
+                int version = in.readUnsignedByte();
+                if (version != 1 && version != VERSION) {
+                    throw new IOException("Unsupported message format version " + version + ": " + file);
+                }
+                int flags = in.readUnsignedByte();
+                long rawSize = in.readLong();
+                long rfcSize = in.readLong();
+                in.readInt(); // Nombre de lignes
+                boolean compressed = (flags & FLAG_DEFLATE) != 0;
+                if (version == 1) {
+                    return new MessageFile(file, compressed, HEADER_SIZE_V1, rawSize, rfcSize, -1, -1);
+                }
+                int headerLength = in.readInt();
+                int bodyLines = in.readInt();
+                return new MessageFile(file, compressed, HEADER_SIZE, rawSize, rfcSize, headerLength, bodyLines);
+            }
+        }
+        // Ancien format : texte brut, la taille du fichier tient lieu de taille RFC
+        return new MessageFile(file, false, 0, file.length(), file.length(), -1, -1);
+    }
+
+    /**
+     * Écrit un message. Le corps n'est compressé que si compress est vrai
+     * et que la compression réduit effectivement sa taille.
+     */
+    public static void write(Path path, byte[] content, int length, boolean compress) throws IOException {
+        int headerLength = findHeaderEnd(content, length);
+        int lines = 0;
+        int headerLines = 0;
+        for (int i = 0; i < length; i++) {
+            if (content[i] == '\n') {
+                lines++;
+                if (i < headerLength) {
+                    headerLines++;
+                }
+            }
+        }
+        // Chaque LF est transmis en CRLF, une dernière ligne sans LF aussi
+        boolean unterminated = length > 0 && content[length - 1] != '\n';
+        long rfcSize = length + lines + (unterminated ? 2 : 0);
+        if (unterminated) {
+            lines++;
+        }
+        int bodyLines = headerLength == length ? 0 : lines - headerLines;
+
+        byte[] body = content;
+        int bodyOffset = headerLength;
+        int bodyLength = length - headerLength;
+        int flags = 0;
+        if (compress) {
+            byte[] deflated = deflate(content, headerLength, bodyLength);
+            if (deflated != null) {
+                body = deflated;
+                bodyOffset = 0;
+                bodyLength = deflated.length;
+                flags |= FLAG_DEFLATE;
+            }
+        }
+
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(path)))) {
+            out.writeInt(MAGIC);
+            out.writeByte(VERSION);
+            out.writeByte(flags);
+            out.writeLong(length);
+            out.writeLong(rfcSize);
+            out.writeInt(lines);
+            out.writeInt(headerLength);
+            out.writeInt(bodyLines);
+            out.write(content, 0, headerLength);
+            out.write(body, bodyOffset, bodyLength);
+        }
+    }
+
+    /**
+     * Ouvre le contenu complet du message (corps décompressé au fil de la lecture si besoin).
+     */
+    public InputStream openContent() throws IOException {
+        InputStream in = new FileInputStream(file);
+        try {
+            in.skipNBytes(dataOffset);
+            if (!compressed) {
+                return in;
+            }
+            if (headerLength < 0) {
+                return inflate(in);
+            }
+            byte[] headers = in.readNBytes(headerLength);
+            return new SequenceInputStream(new ByteArrayInputStream(headers), inflate(in));
+        } catch (IOException e) {
+            in.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Retourne le bloc d'en-têtes du message, ligne vide de séparation incluse.
+     * Pour un fichier indexé, c'est une seule lecture positionnée de la taille exacte,
+     * ce qui permet de prévisualiser une boîte entière à moindre coût.
+     */
+    public byte[] readHeaders() throws IOException {
+        if (headerLength >= 0) {
+            byte[] headers = new byte[headerLength];
+            ByteBuffer buffer = ByteBuffer.wrap(headers);
+            try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+                while (buffer.hasRemaining()) {
+                    if (channel.read(buffer, dataOffset + buffer.position()) < 0) {
+                        throw new EOFException("Truncated message: " + file);
+                    }
+                }
+            }
+            return headers;
+        }
+        try (InputStream in = new BufferedInputStream(openContent(), BufferPool.BUFFER_SIZE)) {
+            ByteArrayOutputStream headers = new ByteArrayOutputStream();
+            skipHeaders(in, headers);
+            return headers.toByteArray();
+        }
+    }
+
+    /**
+     * Ouvre le corps du message, positionné juste après la ligne vide.
+     */
+    public InputStream openBody() throws IOException {
+        if (headerLength >= 0) {
+            FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+            channel.position(dataOffset + headerLength);
+            InputStream in = Channels.newInputStream(channel);
+            return compressed ? inflate(in) : in;
+        }
+        InputStream in = new BufferedInputStream(openContent(), BufferPool.BUFFER_SIZE);
+        try {
+            skipHeaders(in, null);
+            return in;
+        } catch (IOException e) {
+            in.close();
+            throw e;
+        }
+    }
+
+    private static InputStream inflate(InputStream in) {
+        return new InflaterInputStream(new BufferedInputStream(in, BufferPool.BUFFER_SIZE));
+    }
+
+    /**
+     * Position juste après la ligne vide qui sépare en-têtes et corps,
+     * ou la longueur totale si le message n'a pas de corps.
+     */
+    private static int findHeaderEnd(byte[] content, int length) {
+        if (length > 0 && content[0] == '\n') {
+            return 1;
+        }
+        for (int i = 1; i < length; i++) {
+            if (content[i] == '\n' && content[i - 1] == '\n') {
+                return i + 1;
+            }
+        }
+        return length;
+    }
+
+    private static void skipHeaders(InputStream in, ByteArrayOutputStream headers) throws IOException {
+        int previous = '\n';
+        int b;
+        while ((b = in.read()) != -1) {
+            if (headers != null) {
+                headers.write(b);
+            }
+            if (b == '\n' && previous == '\n') {
+                return;
+            }
+            previous = b;
+        }
+    }
+
+    private static byte[] deflate(byte[] content, int offset, int length) {
+        Deflater deflater = new Deflater();
+        try {
+            deflater.setInput(content, offset, length);
+            deflater.finish();
+            // Inutile de garder une version compressée qui ne fait rien gagner
+            byte[] output = new byte[length];
+            int written = 0;
+            while (!deflater.finished() && written < output.length) {
+                written += deflater.deflate(output, written, output.length - written);
+            }
+            return deflater.finished() ? Arrays.copyOf(output, written) : null;
+        } finally {
+            deflater.end();
+        }
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    public boolean isCompressed() {
+        return compressed;
+    }
+
+    public boolean isIndexed() {
+        return headerLength >= 0;
+    }
+
+    public long getRawSize() {
+        return rawSize;
+    }
+
+    public long getRfcSize() {
+        return rfcSize;
+    }
+
+    public int getHeaderLength() {
+        return headerLength;
+    }
+
+    public long getBodyOffset() {
+        return headerLength >= 0 ? dataOffset + headerLength : -1;
+    }
+
+    public int getBodyLines() {
+        return bodyLines;
+    }
+}